@@ -1,8 +1,16 @@
 import java.awt.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.DecimalFormatSymbols;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Pattern;
 import java.util.zip.CRC32;
 
@@ -13,6 +21,37 @@ public final class DataTool {
     public static final String SEPARATOR = System.getProperty("line.separator");
     public static final String TRUE = "true";
 
+    // content defined chunking: ~10 KB average chunks bounded by 2 KB and 64 KB
+    private static final int CHUNK_MIN_SIZE = 2 * 1024;
+    private static final int CHUNK_MAX_SIZE = 64 * 1024;
+    private static final long CHUNK_MASK = 0x1FFFL << 51; // high bits depend on the most bytes of the gear hash
+    private static final String CHUNK_HASH_ALGORITHM = "SHA-256"; // cleanup jobs act on it, so no practical collisions
+    private static final int CHUNK_HASH_LENGTH = 32;
+    private static final int CHUNK_INDEX_MAGIC = 0x44544349; // DTCI
+    private static final int CHUNK_INDEX_VERSION = 2;
+    private static final long[] GEAR = new long[256];
+
+    private static final String[] READABLE_SIZE_UNITS = new String[]{"KB", "MB", "GB", "TB", "PB", "EB", "ZB", "YB"};
+    private static final long READABLE_SIZE_EXACT_LIMIT = 1L << 40;
+    private static volatile NumberSymbols numberSymbols;
+
+    private static final Comparator<Map.Entry<String, Long>> SMALLEST_SIZE_FIRST = new Comparator<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(Map.Entry<String, Long> entry1, Map.Entry<String, Long> entry2) {
+            int comparison = Long.compare(entry1.getValue(), entry2.getValue());
+
+            return comparison != 0 ? comparison : entry2.getKey().compareTo(entry1.getKey());
+        }
+    };
+
+    static {
+        // fixed seed so chunk boundaries and indexes stay the same across runs
+        Random random = new Random(0x44617461546F6F6CL);
+        for(int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
     /**
      * Do not allow objects of this class to be made.
      */
@@ -191,6 +230,76 @@ public final class DataTool {
         return crc32Value;
     }
 
+    /**
+     * Splits a file into content defined chunks using a gear rolling hash.
+     * Chunk boundaries only depend on the bytes around them, so an insertion
+     * or deletion only changes the chunks it touches.
+     *
+     * @param file the file
+     * @return the chunked file, otherwise null
+     */
+    public static ChunkedFile getChunkedFile(File file) {
+        if(file == null || !file.isFile()) {
+            return null;
+        }
+
+        long lastModified = file.lastModified();
+
+        try(InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance(CHUNK_HASH_ALGORITHM);
+            ByteArrayOutputStream hashes = new ByteArrayOutputStream();
+            int[] lengths = new int[16];
+            int chunkCount = 0;
+
+            byte[] buffer = new byte[CHUNK_MAX_SIZE];
+            long size = 0;
+            long hash = 0;
+            int length = 0;
+            int bytesRead;
+            while((bytesRead = in.read(buffer)) != -1) {
+                int start = 0;
+                for(int i = 0; i < bytesRead; i++) {
+                    hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+                    length++;
+
+                    // cut a chunk when the hash matches or the chunk got too big
+                    if(length >= CHUNK_MAX_SIZE || (length >= CHUNK_MIN_SIZE && (hash & CHUNK_MASK) == 0)) {
+                        digest.update(buffer, start, i + 1 - start);
+                        hashes.write(digest.digest());
+                        if(chunkCount == lengths.length) {
+                            lengths = Arrays.copyOf(lengths, chunkCount * 2);
+                        }
+                        lengths[chunkCount++] = length;
+
+                        start = i + 1;
+                        hash = 0;
+                        length = 0;
+                    }
+                }
+                digest.update(buffer, start, bytesRead - start);
+                size += bytesRead;
+            }
+
+            // the rest of the file is the last chunk
+            if(length > 0) {
+                hashes.write(digest.digest());
+                if(chunkCount == lengths.length) {
+                    lengths = Arrays.copyOf(lengths, chunkCount + 1);
+                }
+                lengths[chunkCount++] = length;
+            }
+
+            return new ChunkedFile(file.toPath().toAbsolutePath().normalize().toString(), size, lastModified,
+                    Arrays.copyOf(lengths, chunkCount), hashes.toByteArray());
+        }
+        catch(NoSuchAlgorithmException e) {
+        }
+        catch(IOException e) {
+        }
+
+        return null;
+    }
+
     /**
      * Gets a boolean list from a list.
      * It expects the data to be in the following format:
@@ -340,6 +449,206 @@ public final class DataTool {
                 "</" + closingTag + ">";
     }
 
+    /**
+     * Gets the chunks that appear more than once in a chunk index.
+     * Every location is formatted as <path>@<offset>.
+     *
+     * @param index the chunk index
+     * @return the locations of the duplicate chunks by chunk hash, or null if index is null
+     */
+    public static Map<String, List<String>> getDuplicateChunks(Map<String, ChunkedFile> index) {
+        if(index == null) {
+            return null;
+        }
+
+        // sort the first 8 bytes of every chunk hash so only chunks sharing them need a closer look
+        int chunkCount = 0;
+        for(ChunkedFile chunkedFile : index.values()) {
+            chunkCount += chunkedFile.getChunkCount();
+        }
+        long[] prefixes = new long[chunkCount];
+        int prefixCount = 0;
+        for(ChunkedFile chunkedFile : index.values()) {
+            for(int i = 0; i < chunkedFile.getChunkCount(); i++) {
+                prefixes[prefixCount++] = chunkedFile.getChunkHashPrefix(i);
+            }
+        }
+        Arrays.sort(prefixes);
+
+        // keep every prefix that appears more than once
+        int duplicatePrefixCount = 0;
+        for(int i = 1; i < prefixes.length; i++) {
+            if(prefixes[i] == prefixes[i - 1] && (duplicatePrefixCount == 0 || prefixes[duplicatePrefixCount - 1] != prefixes[i])) {
+                prefixes[duplicatePrefixCount++] = prefixes[i];
+            }
+        }
+        long[] duplicatePrefixes = Arrays.copyOf(prefixes, duplicatePrefixCount);
+        prefixes = null;
+
+        // only the chunks with a duplicate prefix get their full hash and location stored
+        Map<String, List<String>> duplicateChunks = new TreeMap<>();
+        for(ChunkedFile chunkedFile : index.values()) {
+            long offset = 0;
+            for(int i = 0; i < chunkedFile.getChunkCount(); i++) {
+                if(Arrays.binarySearch(duplicatePrefixes, chunkedFile.getChunkHashPrefix(i)) >= 0) {
+                    String hash = chunkedFile.getChunkHash(i);
+                    List<String> locations = duplicateChunks.get(hash);
+                    if(locations == null) {
+                        locations = new ArrayList<>();
+                        duplicateChunks.put(hash, locations);
+                    }
+                    locations.add(chunkedFile.getPath() + "@" + offset);
+                }
+                offset += chunkedFile.getChunkLength(i);
+            }
+        }
+
+        // chunks that only share the prefix are not duplicates
+        Iterator<List<String>> iterator = duplicateChunks.values().iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().size() < 2) {
+                iterator.remove();
+            }
+        }
+
+        return duplicateChunks;
+    }
+
+    /**
+     * Gets the groups of files with the same content in a chunk index.
+     * Empty files are left out.
+     *
+     * @param index the chunk index
+     * @return the paths of the duplicate files grouped by content, or null if index is null
+     */
+    public static List<List<String>> getDuplicateFiles(Map<String, ChunkedFile> index) {
+        if(index == null) {
+            return null;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(CHUNK_HASH_ALGORITHM);
+        }
+        catch(NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        // the same content always gives the same chunks, so the chunk hashes identify the file
+        Map<ByteBuffer, List<String>> filesByContent = new HashMap<>();
+        for(ChunkedFile chunkedFile : index.values()) {
+            if(chunkedFile.getSize() == 0) {
+                continue;
+            }
+
+            ByteBuffer key = ByteBuffer.allocate(8 + CHUNK_HASH_LENGTH);
+            key.putLong(chunkedFile.getSize());
+            key.put(digest.digest(chunkedFile.getChunkHashes()));
+            key.flip();
+
+            List<String> paths = filesByContent.get(key);
+            if(paths == null) {
+                paths = new ArrayList<>();
+                filesByContent.put(key, paths);
+            }
+            paths.add(chunkedFile.getPath());
+        }
+
+        List<List<String>> duplicateFiles = new ArrayList<>();
+        for(List<String> paths : filesByContent.values()) {
+            if(paths.size() > 1) {
+                Collections.sort(paths);
+                duplicateFiles.add(paths);
+            }
+        }
+
+        return duplicateFiles;
+    }
+
+    /**
+     * Gets the file counts and sizes of a folder and all its sub folders.
+     * Every folder is scanned as its own fork/join task so large trees use all cores.
+     *
+     * @param foldername       the folder name
+     * @param largestFileCount the number of largest files to keep track of in every folder
+     * @return the folder summary, otherwise null
+     */
+    public static FolderSummary getFolderSummary(String foldername, int largestFileCount) {
+        if(foldername == null) {
+            return null;
+        }
+
+        Path path = Paths.get(foldername).toAbsolutePath().normalize();
+        if(!Files.isDirectory(path)) {
+            return null;
+        }
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool();
+        try {
+            return forkJoinPool.invoke(new FolderSummaryTask(path, Math.max(largestFileCount, 0)));
+        }
+        finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    /**
+     * Gets a human readable report of a folder summary in the following format:
+     * path: size in # files and # folders
+     * Largest folders:
+     * size path
+     * Largest files:
+     * size path
+     *
+     * @param folderSummary the folder summary
+     * @param count         the number of largest folders to list
+     * @return the report lines or null
+     */
+    public static List<String> getFolderSummaryReport(FolderSummary folderSummary, int count) {
+        if(folderSummary == null) {
+            return null;
+        }
+
+        List<String> report = new ArrayList<>();
+        report.add(folderSummary.getPath() + ": " + getReadableSize(folderSummary.getSize()) + " in " +
+                folderSummary.getFileCount() + " files and " + folderSummary.getFolderCount() + " folders");
+
+        report.add("Largest folders:");
+        for(Map.Entry<String, Long> entry : getLargestFolders(folderSummary, count).entrySet()) {
+            report.add(getReadableSize(entry.getValue()) + " " + entry.getKey());
+        }
+
+        report.add("Largest files:");
+        for(Map.Entry<String, Long> entry : folderSummary.getLargestFiles().entrySet()) {
+            report.add(getReadableSize(entry.getValue()) + " " + entry.getKey());
+        }
+
+        return report;
+    }
+
+    /**
+     * Gets the largest sub folders of a folder summary.
+     *
+     * @param folderSummary the folder summary
+     * @param count         the number of folders
+     * @return the sizes of the largest folders by path, largest first, or null if folderSummary is null
+     */
+    public static Map<String, Long> getLargestFolders(FolderSummary folderSummary, int count) {
+        if(folderSummary == null) {
+            return null;
+        }
+
+        PriorityQueue<Map.Entry<String, Long>> largestFolders = new PriorityQueue<>(11, SMALLEST_SIZE_FIRST);
+        Deque<FolderSummary> folderSummaries = new ArrayDeque<>(folderSummary.getFolders());
+        while(!folderSummaries.isEmpty()) {
+            FolderSummary folder = folderSummaries.pop();
+            addLargest(largestFolders, new AbstractMap.SimpleImmutableEntry<>(folder.getPath(), folder.getSize()), count);
+            folderSummaries.addAll(folder.getFolders());
+        }
+
+        return getLargestFirst(largestFolders);
+    }
+
     /**
      * Converts a list to a string with its elements separated by new line separators.
      *
@@ -425,15 +734,42 @@ public final class DataTool {
             return bytes + " B";
         }
 
-        String[] units = new String[]{"KB", "MB", "GB", "TB", "PB", "EB", "ZB", "YB"};
+        // below a TB the size is exact in a double, so rounding it with integers gives the same result as String.format
+        if(bytes < READABLE_SIZE_EXACT_LIMIT) {
+            int unitIndex = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+            int shift = unitIndex * 10;
+            NumberSymbols numberSymbols = getNumberSymbols();
+
+            StringBuilder sb = new StringBuilder(12);
+            long tenths = (bytes * 20 + (1L << shift)) >> (shift + 1);
+            long whole = tenths / 10;
+            if(whole >= 100 && whole < 1000) { // 233.55
+                appendDigits(sb, whole, numberSymbols.zeroDigit);
+            }
+            else if(whole < 10) { // 3.8
+                long hundredths = (bytes * 200 + (1L << shift)) >> (shift + 1);
+                appendDigits(sb, hundredths / 100, numberSymbols.zeroDigit);
+                sb.append(numberSymbols.decimalSeparator);
+                appendDigits(sb, hundredths / 10 % 10, numberSymbols.zeroDigit);
+                appendDigits(sb, hundredths % 10, numberSymbols.zeroDigit);
+            }
+            else { // 20.29
+                appendDigits(sb, whole, numberSymbols.zeroDigit);
+                sb.append(numberSymbols.decimalSeparator);
+                appendDigits(sb, tenths % 10, numberSymbols.zeroDigit);
+            }
+
+            return sb.append(' ').append(READABLE_SIZE_UNITS[unitIndex - 1]).toString();
+        }
+
         int unitIndex = (int) (Math.log(bytes) / Math.log(1024));
 
         // make sure the file is not bigger than YB
-        if(unitIndex > units.length) {
+        if(unitIndex > READABLE_SIZE_UNITS.length) {
             return bytes + " B";
         }
 
-        String unit = units[unitIndex - 1];
+        String unit = READABLE_SIZE_UNITS[unitIndex - 1];
 
         double size = bytes / Math.pow(1024, unitIndex);
 
@@ -561,6 +897,72 @@ public final class DataTool {
         return null;
     }
 
+    /**
+     * Loads a chunk index saved with saveChunkIndex.
+     *
+     * @param filename the filename
+     * @return the chunk index by path, otherwise null
+     */
+    public static Map<String, ChunkedFile> loadChunkIndex(String filename) {
+        if(filename == null) {
+            return null;
+        }
+
+        long indexSize = new File(filename).length();
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            if(in.readInt() != CHUNK_INDEX_MAGIC || in.readInt() != CHUNK_INDEX_VERSION) {
+                return null;
+            }
+
+            int fileCount = in.readInt();
+            if(fileCount < 0) {
+                return null;
+            }
+
+            Map<String, ChunkedFile> index = new TreeMap<>();
+            for(int i = 0; i < fileCount; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+
+                // a corrupt index must not make us allocate more than the index can hold,
+                // and only the last chunk of a file can be smaller than the minimum chunk size
+                int chunkCount = in.readInt();
+                if(size < 0 || chunkCount < 0 || chunkCount > size / CHUNK_MIN_SIZE + 1 ||
+                        (long) chunkCount * (4 + CHUNK_HASH_LENGTH) > indexSize) {
+                    return null;
+                }
+
+                int[] lengths = new int[chunkCount];
+                long chunkedSize = 0;
+                for(int j = 0; j < chunkCount; j++) {
+                    lengths[j] = in.readInt();
+                    if(lengths[j] <= 0 || lengths[j] > CHUNK_MAX_SIZE) {
+                        return null;
+                    }
+                    chunkedSize += lengths[j];
+                }
+                if(chunkedSize != size) {
+                    return null;
+                }
+
+                byte[] hashes = new byte[chunkCount * CHUNK_HASH_LENGTH];
+                in.readFully(hashes);
+
+                index.put(path, new ChunkedFile(path, size, lastModified, lengths, hashes));
+            }
+
+            return index;
+        }
+        catch(FileNotFoundException e) {
+        }
+        catch(IOException e) {
+        }
+
+        return null;
+    }
+
     /**
      * Attempts to open a given file in the user's default file manager.
      *
@@ -621,6 +1023,59 @@ public final class DataTool {
         return false;
     }
 
+    /**
+     * Saves a chunk index to a filename in a compact binary format.
+     * The index is written to a temporary file first and then moved over the old one,
+     * so an interrupted save keeps the old index.
+     *
+     * @param filename the filename
+     * @param index    the chunk index
+     * @return true on success
+     */
+    public static boolean saveChunkIndex(String filename, Map<String, ChunkedFile> index) {
+        if(filename == null || index == null) {
+            return false;
+        }
+
+        Path indexPath = Paths.get(filename).toAbsolutePath().normalize();
+        Path temporaryPath = indexPath.resolveSibling(indexPath.getFileName() + "." + System.nanoTime() + ".tmp");
+        boolean created = false;
+        try {
+            // a new file gets the umask permissions like the index would, Files.createTempFile would make it private
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporaryPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)))) {
+                created = true;
+                writeChunkIndex(out, index);
+            }
+
+            // keep the permissions of the old index
+            if(Files.exists(indexPath)) {
+                try {
+                    Files.setPosixFilePermissions(temporaryPath, Files.getPosixFilePermissions(indexPath));
+                }
+                catch(UnsupportedOperationException e) {
+                }
+            }
+
+            Files.move(temporaryPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return true;
+        }
+        catch(IOException e) {
+        }
+
+        // do not leave half written indexes behind
+        if(created) {
+            try {
+                Files.deleteIfExists(temporaryPath);
+            }
+            catch(IOException e) {
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Saves data to a filename if the data is different from the one already in the file.
      *
@@ -717,4 +1172,723 @@ public final class DataTool {
 
         return source;
     }
+
+    /**
+     * Updates a chunk index with the files in the given folders and saves it.
+     * Files with the same size and last modified time as in the saved index are not read again,
+     * the other files are chunked in parallel. Saved entries outside the given folders are kept,
+     * so jobs for different folders can share an index as long as they do not run at the same time.
+     *
+     * @param indexFilename the filename of the chunk index
+     * @param foldernames   the folder names
+     * @return the updated chunk index by path, otherwise null
+     */
+    public static Map<String, ChunkedFile> updateChunkIndex(String indexFilename, List<String> foldernames) {
+        if(indexFilename == null || foldernames == null) {
+            return null;
+        }
+
+        // without a saved index every file gets chunked
+        Map<String, ChunkedFile> savedIndex = loadChunkIndex(indexFilename);
+        if(savedIndex == null) {
+            savedIndex = new HashMap<>();
+        }
+
+        // find all files in the folders except the index itself, overlapping folders only add them once
+        final String indexPath = Paths.get(indexFilename).toAbsolutePath().normalize().toString();
+        final Map<String, BasicFileAttributes> files = new LinkedHashMap<>();
+        List<Path> folders = new ArrayList<>();
+        for(String foldername : foldernames) {
+            Path folder = Paths.get(foldername).toAbsolutePath().normalize();
+            folders.add(folder);
+            try {
+                Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                        // normalized paths keep the index keys the same however the folders are spelled
+                        String file = path.normalize().toString();
+                        if(attributes.isRegularFile() && !file.equals(indexPath)) {
+                            files.put(file, attributes);
+                        }
+
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            catch(IOException e) {
+            }
+        }
+
+        // keep the saved entries of files outside the folders
+        Map<String, ChunkedFile> index = new TreeMap<>();
+        for(ChunkedFile chunkedFile : savedIndex.values()) {
+            boolean inFolders = false;
+            for(Path folder : folders) {
+                if(Paths.get(chunkedFile.getPath()).startsWith(folder)) {
+                    inFolders = true;
+                    break;
+                }
+            }
+
+            if(!inFolders) {
+                index.put(chunkedFile.getPath(), chunkedFile);
+            }
+        }
+
+        List<Future<ChunkedFile>> futures = new ArrayList<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for(Map.Entry<String, BasicFileAttributes> entry : files.entrySet()) {
+                ChunkedFile chunkedFile = savedIndex.get(entry.getKey());
+                BasicFileAttributes attributes = entry.getValue();
+                if(chunkedFile != null && chunkedFile.getSize() == attributes.size() &&
+                        chunkedFile.getLastModified() == attributes.lastModifiedTime().toMillis()) {
+                    index.put(chunkedFile.getPath(), chunkedFile);
+                }
+                else { // new or changed file
+                    final File file = new File(entry.getKey());
+                    futures.add(executorService.submit(new Callable<ChunkedFile>() {
+                        @Override
+                        public ChunkedFile call() {
+                            return getChunkedFile(file);
+                        }
+                    }));
+                }
+            }
+
+            for(Future<ChunkedFile> future : futures) {
+                ChunkedFile chunkedFile = future.get();
+                if(chunkedFile != null) {
+                    index.put(chunkedFile.getPath(), chunkedFile);
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return null;
+        }
+        catch(ExecutionException e) {
+            return null;
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+
+        if(!saveChunkIndex(indexFilename, index)) {
+            return null;
+        }
+
+        return index;
+    }
+
+    private static void addLargest(PriorityQueue<Map.Entry<String, Long>> largest, Map.Entry<String, Long> entry, int count) {
+        if(count <= 0) {
+            return;
+        }
+
+        if(largest.size() < count) {
+            largest.add(entry);
+        }
+        else if(SMALLEST_SIZE_FIRST.compare(entry, largest.peek()) > 0) { // bigger than the smallest one kept
+            largest.poll();
+            largest.add(entry);
+        }
+    }
+
+    private static void appendDigits(StringBuilder sb, long number, char zeroDigit) {
+        int start = sb.length();
+        do {
+            sb.insert(start, (char) (zeroDigit + number % 10));
+            number /= 10;
+        } while(number > 0);
+    }
+
+    private static Map<String, Long> getLargestFirst(PriorityQueue<Map.Entry<String, Long>> largest) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(largest);
+        Collections.sort(entries, Collections.reverseOrder(SMALLEST_SIZE_FIRST));
+
+        Map<String, Long> largestFirst = new LinkedHashMap<>();
+        for(Map.Entry<String, Long> entry : entries) {
+            largestFirst.put(entry.getKey(), entry.getValue());
+        }
+
+        return largestFirst;
+    }
+
+    private static NumberSymbols getNumberSymbols() {
+        // String.format uses the default format locale, so follow it when it changes
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        NumberSymbols symbols = numberSymbols;
+        if(symbols == null || !symbols.locale.equals(locale)) {
+            symbols = new NumberSymbols(locale);
+            numberSymbols = symbols;
+        }
+
+        return symbols;
+    }
+
+    private static void writeChunkIndex(DataOutputStream out, Map<String, ChunkedFile> index) throws IOException {
+        out.writeInt(CHUNK_INDEX_MAGIC);
+        out.writeInt(CHUNK_INDEX_VERSION);
+        out.writeInt(index.size());
+        for(ChunkedFile chunkedFile : index.values()) {
+            out.writeUTF(chunkedFile.getPath());
+            out.writeLong(chunkedFile.getSize());
+            out.writeLong(chunkedFile.getLastModified());
+
+            out.writeInt(chunkedFile.getChunkCount());
+            for(int i = 0; i < chunkedFile.getChunkCount(); i++) {
+                out.writeInt(chunkedFile.getChunkLength(i));
+            }
+            out.write(chunkedFile.getChunkHashes());
+        }
+        out.flush();
+    }
+
+    /**
+     * A file split into content defined chunks.
+     */
+    public static final class ChunkedFile {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final int[] chunkLengths;
+        private final byte[] chunkHashes;
+
+        private ChunkedFile(String path, long size, long lastModified, int[] chunkLengths, byte[] chunkHashes) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.chunkLengths = chunkLengths;
+            this.chunkHashes = chunkHashes;
+        }
+
+        /**
+         * Gets the absolute path of the file.
+         *
+         * @return the path
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the size of the file when it was chunked.
+         *
+         * @return the size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the last modified time of the file when it was chunked.
+         *
+         * @return the last modified time in milliseconds
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Gets the number of chunks.
+         *
+         * @return the number of chunks
+         */
+        public int getChunkCount() {
+            return chunkLengths.length;
+        }
+
+        /**
+         * Gets the length of a chunk.
+         *
+         * @param chunk the chunk index
+         * @return the length of the chunk in bytes
+         */
+        public int getChunkLength(int chunk) {
+            return chunkLengths[chunk];
+        }
+
+        /**
+         * Gets the hash of a chunk.
+         *
+         * @param chunk the chunk index
+         * @return the SHA-256 value of the chunk
+         */
+        public String getChunkHash(int chunk) {
+            StringBuilder sb = new StringBuilder(CHUNK_HASH_LENGTH * 2);
+            for(int i = chunk * CHUNK_HASH_LENGTH; i < (chunk + 1) * CHUNK_HASH_LENGTH; i++) {
+                sb.append(Character.toUpperCase(Character.forDigit((chunkHashes[i] >> 4) & 0xF, 16)));
+                sb.append(Character.toUpperCase(Character.forDigit(chunkHashes[i] & 0xF, 16)));
+            }
+
+            return sb.toString();
+        }
+
+        private long getChunkHashPrefix(int chunk) {
+            long prefix = 0;
+            for(int i = chunk * CHUNK_HASH_LENGTH; i < chunk * CHUNK_HASH_LENGTH + 8; i++) {
+                prefix = (prefix << 8) | (chunkHashes[i] & 0xFF);
+            }
+
+            return prefix;
+        }
+
+        private byte[] getChunkHashes() {
+            return chunkHashes;
+        }
+    }
+
+    /**
+     * The file counts and sizes of a folder and all its sub folders.
+     */
+    public static final class FolderSummary {
+        private final String path;
+        private final long size;
+        private final long fileCount;
+        private final long folderCount;
+        private final List<FolderSummary> folders;
+        private final Map<String, Long> largestFiles;
+
+        private FolderSummary(String path, long size, long fileCount, long folderCount, List<FolderSummary> folders,
+                              Map<String, Long> largestFiles) {
+            this.path = path;
+            this.size = size;
+            this.fileCount = fileCount;
+            this.folderCount = folderCount;
+            this.folders = folders;
+            this.largestFiles = largestFiles;
+        }
+
+        /**
+         * Gets the absolute path of the folder.
+         *
+         * @return the path
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the size of all files in the folder and its sub folders.
+         *
+         * @return the size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the number of files in the folder and its sub folders.
+         *
+         * @return the number of files
+         */
+        public long getFileCount() {
+            return fileCount;
+        }
+
+        /**
+         * Gets the number of sub folders in the folder and its sub folders.
+         *
+         * @return the number of folders
+         */
+        public long getFolderCount() {
+            return folderCount;
+        }
+
+        /**
+         * Gets the summaries of the direct sub folders.
+         *
+         * @return the sub folder summaries
+         */
+        public List<FolderSummary> getFolders() {
+            return Collections.unmodifiableList(folders);
+        }
+
+        /**
+         * Gets the largest files in the folder and its sub folders.
+         *
+         * @return the sizes of the largest files by path, largest first
+         */
+        public Map<String, Long> getLargestFiles() {
+            return Collections.unmodifiableMap(largestFiles);
+        }
+    }
+
+    /**
+     * Scans one folder and forks a task for each of its sub folders.
+     */
+    private static final class FolderSummaryTask extends RecursiveTask<FolderSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path path;
+        private final int largestFileCount;
+
+        private FolderSummaryTask(Path path, int largestFileCount) {
+            this.path = path;
+            this.largestFileCount = largestFileCount;
+        }
+
+        @Override
+        protected FolderSummary compute() {
+            final List<FolderSummaryTask> tasks = new ArrayList<>();
+            final long[] sizeAndFileCount = new long[2];
+            final PriorityQueue<Map.Entry<String, Long>> largestFiles = new PriorityQueue<>(11, SMALLEST_SIZE_FIRST);
+
+            // a depth of 1 visits every entry of the folder with its attributes
+            try {
+                Files.walkFileTree(path, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if(attributes.isDirectory()) {
+                            FolderSummaryTask task = new FolderSummaryTask(file, largestFileCount);
+                            task.fork();
+                            tasks.add(task);
+                        }
+                        else {
+                            sizeAndFileCount[0] += attributes.size();
+                            sizeAndFileCount[1]++;
+                            addLargest(largestFiles, new AbstractMap.SimpleImmutableEntry<>(file.toString(), attributes.size()), largestFileCount);
+                        }
+
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path folder, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            catch(IOException e) {
+            }
+
+            long size = sizeAndFileCount[0];
+            long fileCount = sizeAndFileCount[1];
+            long folderCount = tasks.size();
+            List<FolderSummary> folders = new ArrayList<>(tasks.size());
+            for(FolderSummaryTask task : tasks) {
+                FolderSummary folder = task.join();
+                size += folder.getSize();
+                fileCount += folder.getFileCount();
+                folderCount += folder.getFolderCount();
+                folders.add(folder);
+
+                for(Map.Entry<String, Long> entry : folder.getLargestFiles().entrySet()) {
+                    addLargest(largestFiles, entry, largestFileCount);
+                }
+            }
+
+            return new FolderSummary(path.toString(), size, fileCount, folderCount, folders, getLargestFirst(largestFiles));
+        }
+    }
+
+    /**
+     * The digits String.format uses for a locale.
+     */
+    private static final class NumberSymbols {
+        private final Locale locale;
+        private final char zeroDigit;
+        private final char decimalSeparator;
+
+        private NumberSymbols(Locale locale) {
+            DecimalFormatSymbols decimalFormatSymbols = DecimalFormatSymbols.getInstance(locale);
+
+            this.locale = locale;
+            this.zeroDigit = decimalFormatSymbols.getZeroDigit();
+            this.decimalSeparator = decimalFormatSymbols.getDecimalSeparator();
+        }
+    }
+
+    /**
+     * A timed operation started with Tracer.startSpan.
+     * Closing the span stops it and records it in its tracer, so it can be used with try-with-resources.
+     * Spans still running inside it on the same thread are stopped and recorded with it.
+     */
+    public static final class Span implements AutoCloseable {
+        private final Tracer tracer;
+        private final Span parent;
+        private final String name;
+        private final int depth;
+        private final long startTime;
+        private long endTime;
+        private volatile boolean closed; // written after endTime so other threads see both
+
+        private Span(Tracer tracer, Span parent, String name) {
+            this.tracer = tracer;
+            this.parent = parent;
+            this.name = name;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+            this.startTime = System.nanoTime();
+        }
+
+        /**
+         * Gets the name of the span.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the names of the span and all spans it is nested in, separated by slashes.
+         *
+         * @return the path
+         */
+        public String getPath() {
+            return parent == null ? name : parent.getPath() + "/" + name;
+        }
+
+        /**
+         * Gets the number of spans this span is nested in.
+         *
+         * @return the depth
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Gets the elapsed time of the span, up to now if it is still running.
+         *
+         * @return the elapsed time in nanoseconds
+         */
+        public long getElapsedTime() {
+            return (closed ? endTime : System.nanoTime()) - startTime;
+        }
+
+        /**
+         * Stops the span and records it.
+         */
+        @Override
+        public void close() {
+            tracer.close(this);
+        }
+
+        @Override
+        public String toString() {
+            return getPath() + ": " + getReadableTime(0, getElapsedTime());
+        }
+
+        private synchronized boolean stop() {
+            if(closed) {
+                return false;
+            }
+
+            endTime = System.nanoTime();
+            closed = true;
+
+            return true;
+        }
+    }
+
+    /**
+     * Records nested spans of the operations of a program in a ring buffer.
+     * Only the most recent spans are kept, so tracing can stay on in long running programs.
+     */
+    public static final class Tracer {
+        private final AtomicReferenceArray<Span> spans;
+        private final AtomicLong spanCount = new AtomicLong();
+        private final ThreadLocal<Span> currentSpan = new ThreadLocal<>();
+
+        /**
+         * Creates a tracer.
+         *
+         * @param capacity the number of most recent spans to keep
+         */
+        public Tracer(int capacity) {
+            spans = new AtomicReferenceArray<>(Math.max(capacity, 1));
+        }
+
+        /**
+         * Starts a span nested in the span currently running on this thread.
+         * Spans that were closed on another thread are not nested in.
+         *
+         * @param name the name of the operation
+         * @return the started span
+         */
+        public Span startSpan(String name) {
+            // spans closed on other threads cannot update this thread, so skip them here
+            Span parent = currentSpan.get();
+            while(parent != null && parent.closed) {
+                parent = parent.parent;
+            }
+
+            Span span = new Span(this, parent, name);
+            currentSpan.set(span);
+
+            return span;
+        }
+
+        /**
+         * Gets the recorded spans, oldest first.
+         *
+         * @return the recorded spans
+         */
+        public List<Span> getSpans() {
+            long count = spanCount.get();
+            long first = Math.max(count - spans.length(), 0);
+
+            List<Span> list = new ArrayList<>((int) (count - first));
+            for(long i = first; i < count; i++) {
+                Span span = spans.get((int) (i % spans.length()));
+                if(span != null) {
+                    list.add(span);
+                }
+            }
+
+            return list;
+        }
+
+        /**
+         * Gets a report of the recorded spans grouped by their nesting in the following format:
+         * name: # spans, total #h #m #s #ms, p50 #h #m #s #ms, p90 #h #m #s #ms, p99 #h #m #s #ms, max #h #m #s #ms
+         * Nested spans are indented below the spans they are nested in, in the order they were first recorded.
+         * Spans whose parent is no longer in the ring buffer or still running are listed below it anyway,
+         * with the parent shown as:
+         * name: no recorded spans
+         *
+         * @return the report lines
+         */
+        public List<String> getReport() {
+            // follow the parents of every span so names with slashes or odd characters cannot mix up the nesting
+            SpanGroup root = new SpanGroup();
+            Deque<Span> ancestors = new ArrayDeque<>();
+            for(Span span : getSpans()) {
+                for(Span ancestor = span; ancestor != null; ancestor = ancestor.parent) {
+                    ancestors.push(ancestor);
+                }
+
+                SpanGroup spanGroup = root;
+                while(!ancestors.isEmpty()) {
+                    spanGroup = spanGroup.getChild(ancestors.pop().getName());
+                }
+                spanGroup.add(span.getElapsedTime());
+            }
+
+            List<String> report = new ArrayList<>();
+            addReport(report, root, "");
+
+            return report;
+        }
+
+        /**
+         * Saves the report of the recorded spans to a filename.
+         *
+         * @param filename the filename
+         * @return true on success
+         */
+        public boolean save(String filename) {
+            return DataTool.save(filename, getListAsString(getReport()));
+        }
+
+        /**
+         * Forgets all recorded spans.
+         */
+        public void clear() {
+            for(int i = 0; i < spans.length(); i++) {
+                spans.set(i, null);
+            }
+        }
+
+        private void close(Span span) {
+            // spans left running inside this one on this thread are closed with it, innermost first
+            Span running = currentSpan.get();
+            for(Span ancestor = running; ancestor != null; ancestor = ancestor.parent) {
+                if(ancestor == span) {
+                    for(Span child = running; child != span; child = child.parent) {
+                        record(child);
+                    }
+
+                    if(span.parent == null) {
+                        currentSpan.remove();
+                    }
+                    else {
+                        currentSpan.set(span.parent);
+                    }
+                    break;
+                }
+            }
+
+            record(span);
+        }
+
+        private void record(Span span) {
+            // a span is only recorded the first time it is closed
+            if(span.stop()) {
+                spans.set((int) (spanCount.getAndIncrement() % spans.length()), span);
+            }
+        }
+
+        private static void addReport(List<String> report, SpanGroup parent, String indent) {
+            for(Map.Entry<String, SpanGroup> entry : parent.children.entrySet()) {
+                SpanGroup spanGroup = entry.getValue();
+                StringBuilder sb = new StringBuilder(indent).append(entry.getKey()).append(": ");
+                if(spanGroup.count == 0) {
+                    sb.append("no recorded spans");
+                }
+                else {
+                    long[] elapsedTimes = Arrays.copyOf(spanGroup.elapsedTimes, spanGroup.count);
+                    Arrays.sort(elapsedTimes);
+
+                    sb.append(elapsedTimes.length).append(" spans");
+                    sb.append(", total ").append(getReadableTime(0, spanGroup.total));
+                    sb.append(", p50 ").append(getReadableTime(0, getPercentile(elapsedTimes, 50)));
+                    sb.append(", p90 ").append(getReadableTime(0, getPercentile(elapsedTimes, 90)));
+                    sb.append(", p99 ").append(getReadableTime(0, getPercentile(elapsedTimes, 99)));
+                    sb.append(", max ").append(getReadableTime(0, elapsedTimes[elapsedTimes.length - 1]));
+                }
+                report.add(sb.toString());
+
+                addReport(report, spanGroup, indent + "  ");
+            }
+        }
+
+        private static long getPercentile(long[] sortedValues, int percentile) {
+            // nearest rank
+            int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+
+            return sortedValues[Math.max(rank, 1) - 1];
+        }
+
+        /**
+         * The elapsed times of the spans with the same names nested in each other.
+         */
+        private static final class SpanGroup {
+            private final Map<String, SpanGroup> children = new LinkedHashMap<>();
+            private long[] elapsedTimes = new long[4];
+            private int count;
+            private long total;
+
+            private SpanGroup getChild(String name) {
+                SpanGroup child = children.get(name);
+                if(child == null) {
+                    child = new SpanGroup();
+                    children.put(name, child);
+                }
+
+                return child;
+            }
+
+            private void add(long elapsedTime) {
+                if(count == elapsedTimes.length) {
+                    elapsedTimes = Arrays.copyOf(elapsedTimes, count * 2);
+                }
+                elapsedTimes[count++] = elapsedTime;
+                total += elapsedTime;
+            }
+        }
+    }
 }
\ No newline at end of file